@@ -32,6 +32,19 @@
   feed" (LF, which is also 0x0A).  All of these separators are recognized on
   input; you may select the output separator.  The options are:
 
+      -checkpoint=name
+          periodically save a checkpoint file with the given name, so that a
+          very large job can be restarted where it stopped, instead of from the
+          beginning.  A checkpoint records how far the input file has been
+          read (at the end of a line), how much has been written to the output
+          file, and the running totals.  If the checkpoint file exists when
+          the program starts, and the input file has the same size and date,
+          and the same options are given, then the output file is cut back to
+          the saved size and processing continues from the saved input
+          position.  Otherwise the checkpoint is ignored and the job starts
+          over.  The checkpoint file is deleted when the job is complete.
+          Input and output must be files, not standard input or output.
+
       -clean
           do not copy unrecognized control codes to the output file.  Extra
           control codes are normally passed through as text characters
@@ -123,15 +136,27 @@
   will be treated as printable text.  Output character sets may not recognize a
   BOM, and some such as UTF-16 will add the BOM if missing.  Consider using
   UTF-16BE or UTF-16LE to avoid an unwanted BOM.
+
+  Checkpoints assume that each line can be decoded and encoded by itself,
+  which is true for almost all character sets.  Character sets that look for a
+  BOM or shift between states (such as UTF-16, UTF-32, and ISO-2022-JP) can't
+  resume correctly, and are not accepted with the -checkpoint option.  Use
+  UTF-16BE or UTF-16LE instead of UTF-16.
 */
 
 import java.io.*;                 // standard I/O
+import java.nio.*;                // byte and character buffers
+import java.nio.channels.*;       // file channels for seeking
+import java.nio.charset.*;        // character set decoders
+import java.util.*;               // properties for checkpoint files
 
 public class TrimFile3
 {
   /* constants */
 
   static final int BUFFER_SIZE = 0x10000; // input buffer size (64K)
+  static final long CHECKPOINT_SIZE = 0x4000000L; // input bytes between
+                                  // ... checkpoints (64 MB)
   static final char CHAR_CR = 0x0D; // ASCII carriage return (CR), same as '\r'
   static final char CHAR_DEL = 0x7F; // ASCII delete (DEL), no escape sequence
   static final char CHAR_LF = 0x0A; // ASCII line feed (LF), same as '\n'
@@ -144,6 +169,11 @@ public class TrimFile3
   static final int NO_CHAR = -99999; // flag when no pending input character
   static final String PROGRAM_TITLE =
     "Trim Trailing Spaces or Tabs from Text Files - by: Keith Fenske";
+  static final String[] STATEFUL_CHARSETS = {"UTF-16", "UTF-32", "X-IBM930",
+    "X-IBM933", "X-IBM935", "X-IBM937", "X-IBM939", "X-IBM1364", "X-IBM1371",
+    "X-IBM1388", "X-IBM1390", "X-IBM1399", "X-COMPOUND_TEXT",
+    "X-JISAUTODETECT"}; // character sets with a BOM or shift states, which
+                                  // ... can't resume from a checkpoint
 
   /* class variables */
 
@@ -159,6 +189,11 @@ public class TrimFile3
     int alltextUsed;              // total number of input chars in buffer
     char[] buffer;                // buffer big enough for most input lines
     int ch;                       // current input character as an integer
+    Properties checkpoint;        // saved values from checkpoint file (if any)
+    String checkpointFilename;    // name of checkpoint file (if given)
+    long checkpointNext;          // input byte offset for next checkpoint
+    TrimFile3Reader checkpointReader; // input reader that knows byte offsets
+    String checkpointSettings;    // options that must match when resuming
     boolean cleanFlag;            // true to delete unrecognized control codes
     long controlFound;            // total number of unrecognized control codes
     String firstFilename;         // first file name on command line (input?)
@@ -166,14 +201,17 @@ public class TrimFile3
     int i;                        // index variable
     String inputCharset;          // name of character set for input file
     String inputFilename;         // name of input file (if given)
-    BufferedReader inputStream;   // input character stream for file or stdin
+    long inputOffset;             // input byte offset for checkpoint or resume
+    Reader inputStream;           // input character stream for file or stdin
     char[] newlineChars;          // <newlineString> converted to char array
     int newlineSize;              // size of <newlineChars> and <newlineString>
     String newlineString;         // user's line separator if <sameFlag> false
     int nextChar;                 // character read but processing delayed
     int nonwhiteUsed;             // index of last non-white char in buffer
     String outputCharset;         // name of character set for output file
+    FileOutputStream outputFile;  // output file when saving checkpoints
     String outputFilename;        // name of output file (if given)
+    long outputOffset;            // output byte offset for checkpoint or resume
     BufferedWriter outputStream;  // output character stream for file or stdout
     boolean printFlag;            // true when line is ready to print
     boolean sameFlag;             // true if output uses input line separators
@@ -186,6 +224,7 @@ public class TrimFile3
 
     /* Initialize variables. */
 
+    checkpointFilename = null;    // by default, don't save checkpoints
     cleanFlag = false;            // by default, don't delete control codes
     controlFound = 0;             // no unrecognized control codes yet
     firstFilename = null;         // no first parameter found on command line
@@ -226,6 +265,11 @@ public class TrimFile3
         newlineString = "\n";     // only applies if <sameFlag> is false
         sameFlag = true;          // use input's separators for output
       }
+      else if (word.startsWith("-checkpoint=")
+        || (mswinFlag && word.startsWith("/checkpoint=")))
+      {
+        checkpointFilename = args[i].substring(12); // accept anything here
+      }
       else if (word.equals("-clean") || (mswinFlag && word.equals("/clean")))
       {
         cleanFlag = true;         // delete unrecognized control codes
@@ -397,6 +441,16 @@ public class TrimFile3
       System.exit(EXIT_FAILURE);  // exit application after printing help
     }
 
+    /* Checkpoints need to seek in the input and cut back the output, which
+    can only be done with files. */
+
+    if ((checkpointFilename != null) && (stdinFlag || stdoutFlag))
+    {
+      System.err.println("Can't use -checkpoint with -stdin or -stdout.");
+      showHelp();                 // show help summary
+      System.exit(EXIT_FAILURE);  // exit application after printing help
+    }
+
     /* Read lines from the input.  Buffer each line until we see a newline
     character.  Then throw away any spaces at the end of the line.  We do this
     by putting input characters into a buffer and keeping two counts: one for
@@ -406,12 +460,63 @@ public class TrimFile3
 
     try                           // catch file I/O errors, bad file names, etc
     {
+      /* If we are saving checkpoints, then look for an earlier checkpoint that
+      we can resume from.  A checkpoint that doesn't match the current input
+      file or options is ignored, and we start from the beginning. */
+
+      checkpoint = null;          // assume there is no checkpoint to resume
+      checkpointNext = 0;         // input byte offset for next checkpoint
+      checkpointReader = null;    // not tracking input byte offsets
+      checkpointSettings = null;  // no options to compare with checkpoint
+      inputOffset = outputOffset = 0; // start at beginning of input, output
+      outputFile = null;          // no output file for checkpoints
+
+      if (checkpointFilename != null) // are we saving checkpoints?
+      {
+        /* Replace missing character set names with the local defaults, as
+        found by InputStreamReader and OutputStreamWriter, so that a checkpoint
+        doesn't match after the local default has changed. */
+
+        inputCharset = resolveCharset(inputCharset, true);
+        outputCharset = resolveCharset(outputCharset, false);
+        if (statefulCharset(inputCharset) || statefulCharset(outputCharset))
+        {
+          System.err.println("Can't use -checkpoint with character set: "
+            + (statefulCharset(inputCharset) ? inputCharset : outputCharset));
+          System.exit(EXIT_FAILURE); // exit application after printing error
+        }
+
+        checkpointSettings = "clean=" + cleanFlag + ", incode=" + inputCharset
+          + ", newline=" + (sameFlag ? "same" : newlineString) + ", outcode="
+          + outputCharset + ", trim=" + trimFlag;
+        checkpoint = readCheckpoint(checkpointFilename, new File(inputFilename),
+          new File(outputFilename), checkpointSettings);
+        if (checkpoint != null)   // is there a valid checkpoint to resume?
+        {
+          inputOffset = getLong(checkpoint, "inputOffset");
+          outputOffset = getLong(checkpoint, "outputOffset");
+          trimCount = getLong(checkpoint, "trimCount");
+          controlFound = getLong(checkpoint, "controlFound");
+          System.err.println("Resuming from checkpoint at input byte "
+            + inputOffset + " and output byte " + outputOffset + ".");
+        }
+        checkpointNext = inputOffset + CHECKPOINT_SIZE;
+      }
+
       /* Open the input and output files.  Using BufferedReader is many times
       faster than using an InputStream directly, even though we still call
-      read() for one character at a time.  The same is done for output. */
+      read() for one character at a time.  The same is done for output.  When
+      saving checkpoints, we use our own reader, which decodes a large block
+      of bytes at a time and can find the byte offset for any character. */
 
       if (stdinFlag)              // do we need to open an input file?
         inputStream = new BufferedReader(new InputStreamReader(System.in));
+      else if (checkpointFilename != null) // are we saving checkpoints?
+      {
+        checkpointReader = new TrimFile3Reader(inputFilename, inputCharset,
+          inputOffset);
+        inputStream = checkpointReader;
+      }
       else if (inputCharset == null) // reading file with default encoding?
         inputStream = new BufferedReader(new FileReader(inputFilename));
       else                        // user specified a character set encoding
@@ -420,6 +525,19 @@ public class TrimFile3
 
       if (stdoutFlag)             // do we need to open an output file?
         outputStream = new BufferedWriter(new OutputStreamWriter(System.out));
+      else if (checkpointFilename != null) // are we saving checkpoints?
+      {
+        if (outputOffset > 0)     // cut back output to size at checkpoint?
+        {
+          RandomAccessFile cutback = new RandomAccessFile(outputFilename, "rw");
+          cutback.setLength(outputOffset); // anything later will be redone
+          cutback.close();
+        }
+        outputFile = new FileOutputStream(outputFilename, (outputOffset > 0));
+                                  // append if resuming, else replace
+        outputStream = new BufferedWriter(new OutputStreamWriter(outputFile,
+          outputCharset));        // character set name was already resolved
+      }
       else if (outputCharset == null) // writing file with default encoding?
         outputStream = new BufferedWriter(new FileWriter(outputFilename));
       else                        // user specified a character set encoding
@@ -555,6 +673,31 @@ public class TrimFile3
         {
           outputStream.write(buffer, 0, alltextUsed); // our line separator
           alltextUsed = nonwhiteUsed = 0; // reset character counts
+
+          /* At the end of a line, with the buffer empty and no pending carriage
+          return, this is a safe place to save a checkpoint.  We don't save a
+          checkpoint where a very long line is broken because it filled the
+          buffer.  A line ending with CR only may have one character already
+          read into <nextChar>, which gets read again when resuming.  Don't
+          bother if that character is end-of-file.  The output must be on disk
+          before the checkpoint refers to it. */
+
+          if (printFlag && (checkpointReader != null)
+            && (checkpointReader.getPosition() >= checkpointNext)
+            && ((nextChar == NO_CHAR) || (nextChar >= 0)))
+          {
+            inputOffset = checkpointReader.getOffset((nextChar == NO_CHAR) ? 0
+              : 1);               // byte offset of next unprocessed character
+            if (inputOffset >= 0) // can we find the input byte offset?
+            {
+              outputStream.flush(); // push buffered characters to output file
+              outputFile.getFD().sync(); // and wait until they are on disk
+              writeCheckpoint(checkpointFilename, new File(inputFilename),
+                new File(outputFilename), checkpointSettings, inputOffset,
+                outputFile.getChannel().position(), trimCount, controlFound);
+            }
+            checkpointNext = checkpointReader.getPosition() + CHECKPOINT_SIZE;
+          }
           printFlag = false;      // don't print the same line again
         }
       }
@@ -576,6 +719,11 @@ public class TrimFile3
 
       inputStream.close();        // try to close input file or stdin
       outputStream.close();       // try to close output file or stdout
+
+      /* The job is complete, so the checkpoint file is no longer useful. */
+
+      if (checkpointFilename != null) // were we saving checkpoints?
+        new File(checkpointFilename).delete(); // ignore errors, if any
     }
     catch (UnsupportedEncodingException uee)
     {
@@ -614,6 +762,143 @@ public class TrimFile3
 
   } // end of main() method
 
+/*
+  getLong() method
+
+  Return the value of a property in a checkpoint file as a long integer, or -1
+  if the property is missing or is not a number.  Valid values are never
+  negative.
+*/
+  static long getLong(Properties checkpoint, String key)
+  {
+    long result;                  // our converted result
+    String value;                 // property value as a string
+
+    value = checkpoint.getProperty(key); // get string, or null if missing
+    if (value == null)            // was the property found?
+      return(-1);                 // no
+    try { result = Long.parseLong(value.trim()); } // convert to integer
+    catch (NumberFormatException nfe) { result = -1; } // not a number
+    return((result < 0) ? -1 : result); // don't allow negative values
+
+  } // end of getLong() method
+
+
+/*
+  readCheckpoint() method
+
+  Read a checkpoint file saved by an earlier run, and decide if we can resume
+  from it.  Return null if there is no checkpoint file, or if the checkpoint
+  doesn't match the current input file, output file, or options.  Errors are
+  reported but are not fatal: we just start over from the beginning.
+*/
+  static Properties readCheckpoint(String checkpointFilename, File inputFile,
+    File outputFile, String settings)
+  {
+    Properties checkpoint;        // values saved in checkpoint file
+    File checkpointFile;          // file object for checkpoint file name
+    FileInputStream checkpointStream; // input stream for checkpoint file
+    long inputOffset;             // input byte offset saved in checkpoint
+    String inputPath;             // canonical path name for input file
+    long outputOffset;            // output byte offset saved in checkpoint
+    String outputPath;            // canonical path name for output file
+    String reason;                // why checkpoint can't be used, or null
+
+    checkpointFile = new File(checkpointFilename);
+    if (checkpointFile.isFile() == false) // is there a checkpoint file?
+      return(null);               // no, so nothing to resume (not an error)
+
+    checkpoint = new Properties(); // empty properties until file is loaded
+    try                           // catch file I/O errors
+    {
+      checkpointStream = new FileInputStream(checkpointFile);
+      checkpoint.load(checkpointStream); // read all saved values
+      checkpointStream.close();   // try to close checkpoint file
+      inputPath = inputFile.getCanonicalPath(); // full names to compare
+      outputPath = outputFile.getCanonicalPath();
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Ignoring checkpoint file: " + ioe.getMessage());
+      return(null);
+    }
+
+    /* The checkpoint must be for the same input and output files.  We would
+    otherwise cut back some unrelated output file.  The input file must be
+    exactly as we left it, and the output file can't be shorter than what was
+    written.  Any change in the options would produce
+    different output, which we can't join with the earlier output. */
+
+    inputOffset = getLong(checkpoint, "inputOffset");
+    outputOffset = getLong(checkpoint, "outputOffset");
+    reason = null;                // assume that checkpoint is good
+    if ((inputOffset < 0) || (outputOffset < 0)
+      || (getLong(checkpoint, "trimCount") < 0)
+      || (getLong(checkpoint, "controlFound") < 0))
+    {
+      reason = "missing or incorrect values";
+    }
+    else if ((inputPath.equals(checkpoint.getProperty("inputPath")) == false)
+      || (outputPath.equals(checkpoint.getProperty("outputPath")) == false))
+    {
+      reason = "different input or output file";
+    }
+    else if ((getLong(checkpoint, "inputLength") != inputFile.length())
+      || (getLong(checkpoint, "inputModified") != inputFile.lastModified())
+      || (inputOffset > inputFile.length()))
+    {
+      reason = "input file has changed";
+    }
+    else if (settings.equals(checkpoint.getProperty("settings")) == false)
+    {
+      reason = "options have changed";
+    }
+    else if (outputOffset > outputFile.length())
+    {
+      reason = "output file is too short";
+    }
+
+    if (reason != null)           // was there a problem with the checkpoint?
+    {
+      System.err.println("Ignoring checkpoint file (" + reason + "): "
+        + checkpointFilename);
+      return(null);
+    }
+    return(checkpoint);           // give caller good checkpoint values
+
+  } // end of readCheckpoint() method
+
+
+/*
+  resolveCharset() method
+
+  Return the canonical name for a character set, as used when saving
+  checkpoints.  If no name is given, then use the local default in the same way
+  as InputStreamReader (for input) or OutputStreamWriter (for output), which
+  may not be the same as the "file.encoding" system property.
+*/
+  static String resolveCharset(String charsetName, boolean inputFlag)
+    throws UnsupportedEncodingException
+  {
+    String name;                  // character set name before resolving
+
+    if (charsetName != null)      // did the user give a name?
+      name = charsetName;         // yes, use that name
+    else if (inputFlag)           // local default for input?
+      name = new InputStreamReader(new ByteArrayInputStream(new byte[0]))
+        .getEncoding();
+    else                          // local default for output
+      name = new OutputStreamWriter(new ByteArrayOutputStream()).getEncoding();
+
+    try { return(Charset.forName(name).name()); } // canonical name
+    catch (IllegalArgumentException iae) // illegal or unsupported name
+    {
+      throw new UnsupportedEncodingException(name);
+    }
+
+  } // end of resolveCharset() method
+
+
 /*
   showHelp() method
 
@@ -629,6 +914,7 @@ public class TrimFile3
     System.err.println();
     System.err.println("Options:");
     System.err.println("  -? = -help = show summary of command-line syntax");
+    System.err.println("  -checkpoint=name - save checkpoints in this file to resume a large job later");
     System.err.println("  -clean = do not copy unrecognized control codes to the output file");
     System.err.println("  -code=name - specifies both -incode and -outcode; default is local system");
     System.err.println("  -copy = copy text without trimming; default removes trailing white space");
@@ -652,6 +938,240 @@ public class TrimFile3
 
   } // end of showHelp() method
 
+
+/*
+  statefulCharset() method
+
+  Return true if a character set (canonical name) has a byte order mark (BOM)
+  or shifts between states.  Decoding or encoding from the middle of a file
+  doesn't give the same result as from the beginning, so we can't resume from a
+  checkpoint with these character sets.
+*/
+  static boolean statefulCharset(String charsetName)
+  {
+    int i;                        // index variable
+    String name;                  // uppercase character set name
+
+    name = charsetName.toUpperCase(); // canonical names have mixed case
+    if ((name.indexOf("-BOM") >= 0) || (name.indexOf("2022") >= 0))
+      return(true);               // UTF-16 or UTF-32 with BOM, or ISO-2022-*
+    for (i = 0; i < STATEFUL_CHARSETS.length; i ++)
+      if (name.equals(STATEFUL_CHARSETS[i]))
+        return(true);
+    return(false);                // should be safe for checkpoints
+
+  } // end of statefulCharset() method
+
+
+/*
+  writeCheckpoint() method
+
+  Save the current position in the input and output files, and the running
+  totals, so that an interrupted job can be resumed later.  We write to a
+  temporary file and then rename it, so that a crash while writing can't leave
+  behind a checkpoint with partial values.  (A crash between deleting the old
+  checkpoint and renaming the new one only means starting over.)
+*/
+  static void writeCheckpoint(String checkpointFilename, File inputFile,
+    File outputFile, String settings, long inputOffset, long outputOffset,
+    long trimCount, long controlFound) throws IOException
+  {
+    Properties checkpoint;        // values saved in checkpoint file
+    File checkpointFile;          // file object for checkpoint file name
+    FileOutputStream checkpointStream; // output stream for temporary file
+    File tempFile;                // temporary file before renaming
+
+    checkpoint = new Properties();
+    checkpoint.setProperty("controlFound", String.valueOf(controlFound));
+    checkpoint.setProperty("inputLength", String.valueOf(inputFile.length()));
+    checkpoint.setProperty("inputModified",
+      String.valueOf(inputFile.lastModified()));
+    checkpoint.setProperty("inputOffset", String.valueOf(inputOffset));
+    checkpoint.setProperty("inputPath", inputFile.getCanonicalPath());
+    checkpoint.setProperty("outputOffset", String.valueOf(outputOffset));
+    checkpoint.setProperty("outputPath", outputFile.getCanonicalPath());
+    checkpoint.setProperty("settings", settings);
+    checkpoint.setProperty("trimCount", String.valueOf(trimCount));
+
+    checkpointFile = new File(checkpointFilename);
+    tempFile = new File(checkpointFilename + ".tmp");
+    checkpointStream = new FileOutputStream(tempFile);
+    checkpoint.store(checkpointStream, PROGRAM_TITLE);
+    checkpointStream.getFD().sync(); // wait until values are on disk
+    checkpointStream.close();
+
+    checkpointFile.delete();      // Windows can't rename over existing file
+    if (tempFile.renameTo(checkpointFile) == false)
+      throw new IOException("can't rename " + tempFile.getPath() + " to "
+        + checkpointFilename);
+
+  } // end of writeCheckpoint() method
+
 } // end of TrimFile3 class
 
+
+/*
+  TrimFile3Reader class
+
+  An input reader for files that knows the byte offset of each character, so
+  that we can save a checkpoint and later seek to the same place.  We read a
+  large block of bytes and decode it into characters.  Finding the byte offset
+  of a character in the block is done only when asked, by decoding the block
+  again up to that character, which is slow but rare.  This assumes that the
+  character set decoder has no state carried from one line to the next.
+*/
+
+class TrimFile3Reader extends Reader
+{
+  /* class variables */
+
+  long bufferOffset;              // file offset of first byte in <byteBuffer>
+  ByteBuffer byteBuffer;          // bytes read from file, not all decoded yet
+  FileChannel channel;            // input file channel, positioned for reading
+  CharBuffer charBuffer;          // characters decoded from current block
+  int chunkStart;                 // index in <byteBuffer> of current block
+  CharsetDecoder decoder;         // decoder for characters that we return
+  boolean endFlag;                // true when end of file has been read
+  boolean flushFlag;              // true when decoder has been fully flushed
+  CharsetDecoder offsetDecoder;   // decoder for finding byte offsets
+
+  /* constructor */
+
+  public TrimFile3Reader(String filename, String charsetName, long offset)
+    throws IOException
+  {
+    Charset charset;              // character set for input file
+
+    /* Use the same character set and error handling as InputStreamReader, so
+    that we produce the same characters as without checkpoints. */
+
+    try { charset = Charset.forName(charsetName); }
+    catch (IllegalArgumentException iae) // illegal or unsupported name
+    {
+      throw new UnsupportedEncodingException(charsetName);
+    }
+    decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    offsetDecoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    channel = new FileInputStream(filename).getChannel();
+    channel.position(offset);     // seek to where we left off, if anywhere
+
+    bufferOffset = offset;        // file offset of first byte in buffer
+    byteBuffer = ByteBuffer.allocate(TrimFile3.BUFFER_SIZE);
+    byteBuffer.limit(0);          // buffer starts empty
+    charBuffer = CharBuffer.allocate(TrimFile3.BUFFER_SIZE);
+    charBuffer.limit(0);          // no characters decoded yet
+    chunkStart = 0;               // no current block
+    endFlag = false;              // haven't reached end of file yet
+    flushFlag = false;            // decoder may have trailing characters
+  }
+
+  /* Close the input file. */
+
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+  /* Read and decode the next block of bytes.  Return false at end of file.
+  Undecoded bytes from the previous block (a partial character) are moved to
+  the front of the buffer.  At the end of the file, the decoder may have more
+  trailing characters than fit in <charBuffer>, so we keep flushing on later
+  calls until the decoder says that it is done. */
+
+  boolean fill() throws IOException
+  {
+    CoderResult result;           // status returned by decoder
+
+    do
+    {
+      if (flushFlag)              // has decoder finished at end of file?
+        return(false);            // yes, nothing more to decode
+
+      bufferOffset += byteBuffer.position(); // bytes that we are dropping
+      byteBuffer.compact();       // keep undecoded bytes, make room for more
+      while ((endFlag == false) && byteBuffer.hasRemaining())
+      {
+        if (channel.read(byteBuffer) < 0) // fill up buffer as much as possible
+          endFlag = true;
+      }
+      byteBuffer.flip();          // prepare to decode what we have
+
+      chunkStart = 0;             // current block starts at front of buffer
+      charBuffer.clear();         // no characters decoded from this block
+      result = decoder.decode(byteBuffer, charBuffer, endFlag);
+      if (endFlag && result.isUnderflow()) // all bytes decoded at end of file?
+        flushFlag = decoder.flush(charBuffer).isUnderflow();
+                                  // yes, done unless trailing chars overflow
+      charBuffer.flip();          // prepare to return characters
+    } while (charBuffer.hasRemaining() == false);
+    return(true);
+  }
+
+  /* Return the byte offset in the file of the character that is <pending>
+  characters before the next character we would return.  Return -1 if the
+  offset can't be found, such as between the two halves of a surrogate pair. */
+
+  long getOffset(int pending)
+  {
+    ByteBuffer bytes;             // bytes for current block
+    CharBuffer chars;             // exact number of characters to decode
+    int count;                    // number of characters to decode
+
+    count = charBuffer.position() - pending;
+    if (count < 0)                // should never happen
+      return(-1);
+    bytes = byteBuffer.duplicate(); // don't change real buffer position
+    bytes.position(chunkStart);   // start of current block
+    if (count > 0)                // do we need to decode anything?
+    {
+      chars = CharBuffer.allocate(count);
+      offsetDecoder.reset();      // start fresh, no state from last time
+      offsetDecoder.decode(bytes, chars, false);
+      if (chars.hasRemaining())   // did we get exactly that many characters?
+        return(-1);               // no, can't find offset for this character
+    }
+    return(bufferOffset + bytes.position());
+  }
+
+  /* Return the file offset of bytes decoded so far.  This is ahead of the
+  characters that have been returned by read(). */
+
+  long getPosition()
+  {
+    return(bufferOffset + byteBuffer.position());
+  }
+
+  /* Return the next character, or -1 for end of file.  This is called for
+  almost every character in the file, so keep it short. */
+
+  public int read() throws IOException
+  {
+    if ((charBuffer.hasRemaining() == false) && (fill() == false))
+      return(-1);                 // end of file
+    return(charBuffer.get());
+  }
+
+  /* Read characters into an array.  Required by Reader, but not used by the
+  main program. */
+
+  public int read(char[] array, int offset, int length) throws IOException
+  {
+    int count;                    // number of characters returned
+
+    if (length == 0)              // caller didn't ask for anything
+      return(0);
+    if ((charBuffer.hasRemaining() == false) && (fill() == false))
+      return(-1);                 // end of file
+    count = Math.min(length, charBuffer.remaining());
+    charBuffer.get(array, offset, count);
+    return(count);
+  }
+
+} // end of TrimFile3Reader class
+
 /* Copyright (c) 2009 by Keith Fenske.  Apache License or GNU GPL. */